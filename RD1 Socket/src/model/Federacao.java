@@ -0,0 +1,210 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Consulta o estoque de sangue de outros servidores (peers) da rede de
+ * hospitais, permitindo descobrir em qual unidade existe estoque de um
+ * determinado tipo sanguneo sem precisar conectar-se a cada uma delas.
+ *
+ * Todos os peers so consultados em paralelo. Cada consulta tem um tempo
+ * mximo; os peers que no respondem a tempo so listados na resposta, que 
+ * montada apenas com os dados das unidades que responderam.
+ *
+ * Os peers so consultados com o comando interno 'estoque bruto', que s
+ * devolve o estoque local. Assim uma consulta nunca  repassada adiante, mesmo
+ * que dois servidores estejam configurados como peers um do outro.
+ */
+public class Federacao {
+	private final static String comandoEstoque = "estoque bruto";
+
+	// consultas  rede que podem estar em andamento ao mesmo tempo
+	private final static int consultasSimultaneas = 4;
+
+	private final List<String> peers;
+	private final int timeout;
+	private final PoolConexoes pool = new PoolConexoes();
+	private final ExecutorService executor;
+
+	/**
+	 * @param peers
+	 *            endereos dos outros servidores, no formato "host:porta"
+	 * @param timeout
+	 *            tempo mximo, em milissegundos, para a resposta de cada peer
+	 */
+	public Federacao(List<String> peers, int timeout) {
+		this.peers = peers;
+		this.timeout = timeout;
+		// cada pedido termina no prazo, ento o nmero de threads  limitado
+		// sem que pedidos fiquem presos na fila
+		this.executor = Executors.newFixedThreadPool(Math.max(1, peers.size() * consultasSimultaneas));
+	}
+
+	/**
+	 * Lista o estoque de cada unidade da rede e o total da rede.
+	 *
+	 * @param nomeLocal
+	 *            nome desta unidade na listagem
+	 * @param estoqueLocal
+	 *            estoque desta unidade, na ordem O+, O-, A+, A-, B+, B-, AB+,
+	 *            AB-
+	 * @return
+	 */
+	public String listarRede(String nomeLocal, float[] estoqueLocal) {
+		ArrayList<String> semResposta = new ArrayList<>();
+		LinkedHashMap<String, float[]> estoques = consultar(nomeLocal, estoqueLocal, semResposta);
+
+		String data = String.format("%-24s%8s%8s%8s%8s%8s%8s%8s%8s%10s\n", "Unidade", "O+", "O-", "A+", "A-", "B+",
+				"B-", "AB+", "AB-", "Total");
+		float[] totalRede = new float[estoqueLocal.length];
+		for (Map.Entry<String, float[]> unidade : estoques.entrySet()) {
+			data += linhaEstoque(unidade.getKey(), unidade.getValue());
+			for (int i = 0; i < totalRede.length; i++) {
+				totalRede[i] += unidade.getValue()[i];
+			}
+		}
+		data += linhaEstoque("Total da rede", totalRede);
+		data += unidadesSemResposta(semResposta);
+		return data;
+	}
+
+	/**
+	 * Lista as unidades da rede que possuem pelo menos a quantidade informada
+	 * de um tipo sanguneo.
+	 *
+	 * @param nomeLocal
+	 *            nome desta unidade na listagem
+	 * @param estoqueLocal
+	 *            estoque desta unidade, na ordem O+, O-, A+, A-, B+, B-, AB+,
+	 *            AB-
+	 * @param indiceTipo
+	 *            posio do tipo sanguneo no estoque
+	 * @param tipo
+	 *            tipo sanguneo procurado
+	 * @param valor
+	 *            quantidade mnima, em litros
+	 * @return
+	 */
+	public String buscar(String nomeLocal, float[] estoqueLocal, int indiceTipo, String tipo, float valor) {
+		ArrayList<String> semResposta = new ArrayList<>();
+		LinkedHashMap<String, float[]> estoques = consultar(nomeLocal, estoqueLocal, semResposta);
+
+		String encontradas = "";
+		for (Map.Entry<String, float[]> unidade : estoques.entrySet()) {
+			float estoque = unidade.getValue()[indiceTipo];
+			if (estoque >= valor) {
+				encontradas += String.format("%-24s%11.2f\n", unidade.getKey(), estoque);
+			}
+		}
+
+		String data;
+		if (encontradas.isEmpty()) {
+			data = "Nenhuma unidade possui " + valor + " litros de sangue do tipo " + tipo + ".\n";
+		} else {
+			data = "Unidades com pelo menos " + valor + " litros de sangue do tipo " + tipo + ":\n";
+			data += String.format("%-24s%-11s\n", "Unidade", "Estoque (l)");
+			data += encontradas;
+		}
+		data += unidadesSemResposta(semResposta);
+		return data;
+	}
+
+	/**
+	 * Encerra as threads de consulta e fecha as conexes com os peers.
+	 */
+	public void encerrar() {
+		executor.shutdownNow();
+		pool.fechar();
+	}
+
+	/**
+	 * Pede o estoque a todos os peers ao mesmo tempo e aguarda as respostas
+	 * at o tempo mximo.
+	 *
+	 * @param semResposta
+	 *            recebe a descrio de cada peer que falhou ou no respondeu a
+	 *            tempo
+	 * @return estoque de cada unidade que respondeu, comeando por esta
+	 */
+	private LinkedHashMap<String, float[]> consultar(String nomeLocal, float[] estoqueLocal,
+			ArrayList<String> semResposta) {
+		// o prazo  o mesmo para todos, pois as consultas correm em paralelo
+		long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		LinkedHashMap<String, PoolConexoes.Pedido> envios = new LinkedHashMap<>();
+		LinkedHashMap<String, Future<float[]>> pedidos = new LinkedHashMap<>();
+		for (final String peer : peers) {
+			final PoolConexoes.Pedido envio = new PoolConexoes.Pedido(prazo);
+			envios.put(peer, envio);
+			pedidos.put(peer, executor.submit(() -> lerEstoque(pool.enviar(peer, comandoEstoque, envio))));
+		}
+
+		LinkedHashMap<String, float[]> estoques = new LinkedHashMap<>();
+		estoques.put(nomeLocal, estoqueLocal);
+		for (Map.Entry<String, Future<float[]>> pedido : pedidos.entrySet()) {
+			try {
+				long restante = Math.max(0, prazo - System.nanoTime());
+				estoques.put(pedido.getKey(), pedido.getValue().get(restante, TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				// fecha o socket em uso, liberando a thread presa na leitura
+				envios.get(pedido.getKey()).cancelar();
+				pedido.getValue().cancel(true);
+				semResposta.add(pedido.getKey() + " (tempo esgotado)");
+			} catch (ExecutionException e) {
+				String motivo = e.getCause().getMessage();
+				semResposta.add(pedido.getKey() + " (" + (motivo != null ? motivo : e.getCause()) + ")");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				semResposta.add(pedido.getKey() + " (consulta interrompida)");
+			}
+		}
+		return estoques;
+	}
+
+	/**
+	 * Converte a resposta do comando 'estoque bruto', uma nica linha com os 8
+	 * valores separados por ';'.
+	 */
+	private static float[] lerEstoque(ArrayList<String> linhas) {
+		if (linhas.size() != 1) {
+			throw new IllegalStateException("resposta invlida");
+		}
+		String[] valores = linhas.get(0).split(";");
+		if (valores.length != 8) {
+			throw new IllegalStateException("resposta invlida");
+		}
+		float[] estoque = new float[valores.length];
+		for (int i = 0; i < valores.length; i++) {
+			estoque[i] = Float.valueOf(valores[i]);
+		}
+		return estoque;
+	}
+
+	private static String linhaEstoque(String unidade, float[] estoque) {
+		float total = 0;
+		for (float valor : estoque) {
+			total += valor;
+		}
+		return String.format("%-24s%8.2f%8.2f%8.2f%8.2f%8.2f%8.2f%8.2f%8.2f%10.2f\n", unidade, estoque[0],
+				estoque[1], estoque[2], estoque[3], estoque[4], estoque[5], estoque[6], estoque[7], total);
+	}
+
+	private static String unidadesSemResposta(ArrayList<String> semResposta) {
+		if (semResposta.isEmpty()) {
+			return "";
+		}
+		String data = "Resposta parcial. Unidades que no responderam:\n";
+		for (String peer : semResposta) {
+			data += "  " + peer + "\n";
+		}
+		return data;
+	}
+}
@@ -0,0 +1,253 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mantm conexes abertas com os servidores vizinhos (peers) da federao, para
+ * que consultas seguidas  rede reaproveitem o mesmo socket em vez de abrir uma
+ * nova conexo a cada pedido.
+ *
+ * Cada peer possui sua prpria fila de conexes livres. Uma conexo s volta
+ * para a fila se a consulta terminou normalmente; em caso de erro ou de tempo
+ * esgotado ela  fechada, pois no se sabe em que ponto da resposta o fluxo
+ * parou.
+ *
+ * Cada envio pertence a um Pedido com prazo absoluto. Os timeouts do socket
+ * ficam um pouco acima do prazo, de modo que quem esgota o prazo  sempre o
+ * Pedido: ao ser cancelado ele fecha o socket em uso, interrompendo inclusive
+ * um peer que envia a resposta byte a byte.
+ */
+public class PoolConexoes {
+	// folga dos timeouts do socket em relao ao prazo do pedido
+	private final static int folga = 500;
+
+	private final Map<String, ConcurrentLinkedQueue<Conexao>> livres = new ConcurrentHashMap<>();
+
+	/**
+	 * Um envio a um peer, com prazo absoluto. Pode ser cancelado por outra
+	 * thread, o que fecha a conexo em uso e libera a thread que a lia.
+	 */
+	public static class Pedido {
+		private final long prazo;
+		private volatile boolean cancelado = false;
+		private Socket socket;
+
+		/**
+		 * @param prazo
+		 *            instante, em System.nanoTime(), em que o pedido expira
+		 */
+		public Pedido(long prazo) {
+			this.prazo = prazo;
+		}
+
+		/**
+		 * Cancela o pedido e fecha o socket que ele estiver usando.
+		 */
+		public synchronized void cancelar() {
+			cancelado = true;
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					System.out.println("No foi possvel fechar o socket.");
+				}
+			}
+		}
+
+		/**
+		 * Passa a usar o socket. Se o pedido j foi cancelado, o socket 
+		 * fechado na hora.
+		 */
+		private synchronized void usar(Socket socket) throws IOException {
+			this.socket = socket;
+			if (cancelado) {
+				socket.close();
+				throw new IOException("Pedido cancelado.");
+			}
+		}
+
+		/**
+		 * Deixa de usar o socket, para que um cancelamento tardio no feche uma
+		 * conexo j devolvida ao pool.
+		 * 
+		 * @return false se o pedido j foi cancelado
+		 */
+		private synchronized boolean liberar() {
+			socket = null;
+			return cancelado == false;
+		}
+
+		/**
+		 * Timeout para o socket, em milissegundos: o tempo restante at o prazo
+		 * mais a folga.
+		 */
+		private int timeout() throws IOException {
+			long restante = TimeUnit.NANOSECONDS.toMillis(prazo - System.nanoTime());
+			if (cancelado || restante <= 0) {
+				throw new SocketTimeoutException("Prazo esgotado.");
+			}
+			return (int) restante + folga;
+		}
+	}
+
+	/**
+	 * Envia um comando para o peer e devolve as linhas da resposta, at a linha
+	 * em branco que encerra cada resposta do protocolo. Se uma conexo
+	 * reaproveitada falhar (o peer pode ter sido reiniciado), o comando 
+	 * reenviado uma vez numa conexo nova.
+	 *
+	 * @param peer
+	 *            endereo no formato "host:porta"
+	 * @param comando
+	 *            comando do protocolo a ser enviado
+	 * @param pedido
+	 *            prazo do envio e meio de cancel-lo
+	 * @return linhas da resposta, sem a linha em branco final
+	 * @throws IOException
+	 */
+	public ArrayList<String> enviar(String peer, String comando, Pedido pedido) throws IOException {
+		Conexao conexao = obter(peer, pedido);
+		try {
+			return enviar(peer, conexao, comando, pedido);
+		} catch (IOException e) {
+			// tempo esgotado ou cancelamento no  conexo velha: tentar de
+			// novo s dobraria a espera
+			if (conexao.reutilizada == false || e instanceof SocketTimeoutException || pedido.cancelado) {
+				throw e;
+			}
+		}
+		return enviar(peer, abrir(peer, pedido), comando, pedido);
+	}
+
+	private ArrayList<String> enviar(String peer, Conexao conexao, String comando, Pedido pedido)
+			throws IOException {
+		try {
+			pedido.usar(conexao.socket);
+			conexao.socket.setSoTimeout(pedido.timeout());
+			conexao.out.println(comando);
+			ArrayList<String> linhas = conexao.lerResposta();
+			conexao.reutilizada = true;
+			if (pedido.liberar()) {
+				devolver(peer, conexao);
+			} else {
+				conexao.fechar();
+			}
+			return linhas;
+		} catch (IOException e) {
+			conexao.fechar();
+			throw e;
+		}
+	}
+
+	/**
+	 * Fecha todas as conexes livres de todos os peers.
+	 */
+	public void fechar() {
+		for (ConcurrentLinkedQueue<Conexao> fila : livres.values()) {
+			Conexao conexao;
+			while ((conexao = fila.poll()) != null) {
+				conexao.fechar();
+			}
+		}
+	}
+
+	/**
+	 * Reaproveita uma conexo livre do peer ou, se no houver nenhuma, abre uma
+	 * nova. Uma conexo livre pode ter sido encerrada pelo peer; nesse caso o
+	 * envio falha e enviar() tenta de novo numa conexo nova.
+	 */
+	private Conexao obter(String peer, Pedido pedido) throws IOException {
+		ConcurrentLinkedQueue<Conexao> fila = livres.get(peer);
+		if (fila != null) {
+			Conexao conexao = fila.poll();
+			if (conexao != null) {
+				return conexao;
+			}
+		}
+		return abrir(peer, pedido);
+	}
+
+	/**
+	 * Abre uma nova conexo com o peer e descarta a mensagem de boas vindas.
+	 * A conexo e a leitura das boas vindas tambm respeitam o prazo do pedido.
+	 */
+	private Conexao abrir(String peer, Pedido pedido) throws IOException {
+		int separador = peer.lastIndexOf(':');
+		String host = peer.substring(0, separador);
+		int porta = Integer.parseInt(peer.substring(separador + 1));
+
+		Socket socket = new Socket();
+		try {
+			pedido.usar(socket);
+			socket.connect(new InetSocketAddress(host, porta), pedido.timeout());
+			socket.setSoTimeout(pedido.timeout());
+			Conexao conexao = new Conexao(socket);
+			// boas vindas e instrues
+			conexao.lerResposta();
+			return conexao;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private void devolver(String peer, Conexao conexao) {
+		ConcurrentLinkedQueue<Conexao> fila = livres.get(peer);
+		if (fila == null) {
+			livres.putIfAbsent(peer, new ConcurrentLinkedQueue<Conexao>());
+			fila = livres.get(peer);
+		}
+		fila.offer(conexao);
+	}
+
+	/**
+	 * Socket aberto com um peer e seus objetos de entrada e sada.
+	 */
+	private static class Conexao {
+		private Socket socket;
+		private BufferedReader in;
+		private PrintWriter out;
+		private boolean reutilizada = false;
+
+		public Conexao(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			this.out = new PrintWriter(socket.getOutputStream(), true);
+		}
+
+		/**
+		 * L as linhas enviadas pelo peer at a linha em branco.
+		 */
+		public ArrayList<String> lerResposta() throws IOException {
+			ArrayList<String> linhas = new ArrayList<>();
+			String line = in.readLine();
+			while (line != null && line.isEmpty() == false) {
+				linhas.add(line);
+				line = in.readLine();
+			}
+			if (line == null) {
+				throw new IOException("O peer encerrou a conexo.");
+			}
+			return linhas;
+		}
+
+		public void fechar() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.out.println("No foi possvel fechar o socket.");
+			}
+		}
+	}
+}
@@ -12,6 +12,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Um programa servidor o qual aceita conexes com clientes, os quais podem pedir informaes e modificar dados do servidor. 
@@ -41,6 +42,20 @@ import java.util.Arrays;
  * e o servidor num socket nico, na porta 9898, permitindo a troca de
  * mensagens.
  * 
+ * FEDERAO
+ * 
+ * Cada hospital executa o seu prprio servidor. Um servidor pode ser iniciado
+ * com uma porta e com os endereos dos outros servidores da rede (peers):
+ * 
+ * 'java model.ServidorSangue [PORTA [HOST:PORTA ...]]'
+ * 
+ * Sem argumentos, o servidor usa a porta 9898 e no tem peers. Servidores em
+ * outras portas usam um banco de dados prprio, permitindo executar vrias
+ * unidades na mesma mquina. Os comandos 'listar rede' e 'buscar' consultam
+ * todos os peers em paralelo, com o comando interno 'estoque bruto'. Peers que
+ * no respondem em at 2 segundos ficam de fora da resposta, que informa quais
+ * unidades no responderam.
+ * 
  * AES
  * 
  * Segue a lista de comandos que o cliente pode enviar ao servidor, e o retorno
@@ -63,7 +78,17 @@ import java.util.Arrays;
  * tipo sanguneo TIPO no banco de dados;
  * 
  * 'remover TIPO, VALOR' : remove a quantidade VALOR de litros de sangue do tipo
- * sanguneo TIPO no banco de dados; e
+ * sanguneo TIPO no banco de dados;
+ * 
+ * 'listar rede' : lista o estoque desta unidade e de cada peer, e o total da
+ * rede;
+ * 
+ * 'buscar TIPO, VALOR' : lista as unidades da rede que possuem pelo menos
+ * VALOR litros de sangue do tipo sanguneo TIPO;
+ * 
+ * 'estoque bruto' : comando interno usado entre servidores. Devolve numa nica
+ * linha o estoque desta unidade, na ordem O+, O-, A+, A-, B+, B-, AB+, AB-,
+ * separado por ';'; e
  * 
  * 'desconectar' : encerra a conexo com o servidor.
  * 
@@ -89,31 +114,56 @@ import java.util.Arrays;
  * Erro 504: Tipo de sangue no reconhecido. Digite 'comandos' para ver os tipos
  * vlidos.
  * 
- * Erro 505: Aparentemente a vrgula est faltando. Padro: 'adicionar/remover
- * TIPO, VALOR'.
+ * Erro 505: Aparentemente a vrgula est faltando. Padro:
+ * 'adicionar/remover/buscar TIPO, VALOR'.
  * 
  */
 public class ServidorSangue {
 	private final static String path = System.getProperty("user.home") + File.separator + "SERVIDOR_SANGUE"
 			+ File.separator;
-	private final static String databaseName = "bloodDatabase";
+	private final static int defaultPort = 9898;
+	private final static int peerTimeout = 2000;
+	private static String databaseName = "bloodDatabase";
 	private final static ArrayList<String> validTypes = new ArrayList<>(
 			Arrays.asList("O+", "O-", "A+", "A-", "B+", "B-", "AB+", "AB-"));
+	private static String nomeLocal;
+	private static Federacao federacao;
 
 	/**
-	 * Inicia o servidor num loop infinito na porta 9898.
+	 * Inicia o servidor num loop infinito na porta informada, ou na porta 9898.
+	 * Os demais argumentos so os peers, no formato HOST:PORTA.
 	 */
 	public static void main(String[] args) throws Exception {
+		int porta = defaultPort;
+		if (args.length > 0) {
+			porta = Integer.parseInt(args[0]);
+		}
+		if (porta != defaultPort) {
+			// cada unidade na mesma mquina tem o seu banco de dados
+			databaseName += porta;
+		}
+		List<String> peers = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].matches(".+:\\d+")) {
+				peers.add(args[i]);
+			} else {
+				System.out.println("Peer '" + args[i] + "' ignorado. Padro: HOST:PORTA.");
+			}
+		}
+		nomeLocal = "local:" + porta;
+		federacao = new Federacao(peers, peerTimeout);
+
 		ensureConnection(); // garante que exista um banco de dados
-		System.out.println("O servidor entrou em execuo.");
+		System.out.println("O servidor entrou em execuo na porta " + porta + " com " + peers.size() + " peer(s).");
 		int numCliente = 0;
-		ServerSocket socketServidor = new ServerSocket(9898);
+		ServerSocket socketServidor = new ServerSocket(porta);
 		try {
 			while (true) {
 				new Instancia(socketServidor.accept(), numCliente++).start();
 			}
 		} finally {
 			socketServidor.close();
+			federacao.encerrar();
 		}
 	}
 
@@ -142,7 +192,9 @@ public class ServidorSangue {
 					+ "\n'listar estoque' : lista a quantidade de sangue armazenada nesta unidade de coleta de sangue;"
 					+ "\n'listar compatibilidade' : Lista quais tipos sanguneos podem doar e receber sangue de outros tipos sanguneos;"
 					+ "\n'adicionar TIPO, VALOR' : Adiciona a quantidade VALOR de litros de sangue do tipo sanguneo TIPO no banco de dados;"
-					+ "\n'remover TIPO, VALOR' : remove a quantidade VALOR de litros de sangue do tipo sanguneo TIPO no banco de dados; e"
+					+ "\n'remover TIPO, VALOR' : remove a quantidade VALOR de litros de sangue do tipo sanguneo TIPO no banco de dados;"
+					+ "\n'listar rede' : lista o estoque desta unidade e de cada peer, e o total da rede;"
+					+ "\n'buscar TIPO, VALOR' : lista as unidades da rede que possuem pelo menos VALOR litros de sangue do tipo sanguneo TIPO; e"
 					+ "\n'desconectar' : encerra a conexo com o servidor."
 					+ "\nOs valores vlidos para TIPO so: O+, O-, A+, A-, B+, B-, AB+, AB-\n";
 
@@ -153,7 +205,7 @@ public class ServidorSangue {
 			String erro502 = "Erro 502: O valor precisa ser maior que 0.\n";
 			String erro503 = "Erro 503: O valor informado  invlido.\n";
 			String erro504 = "Erro 504: Tipo de sangue no reconhecido. Digite 'comandos' para ver os tipos vlidos.\n";
-			String erro505 = "Erro 505: Aparentemente a vrgula est faltando. Padro: 'adicionar/remover TIPO, VALOR'.\n";
+			String erro505 = "Erro 505: Aparentemente a vrgula est faltando. Padro: 'adicionar/remover/buscar TIPO, VALOR'.\n";
 
 			try {
 				// l as entradas de String do cliente
@@ -169,6 +221,10 @@ public class ServidorSangue {
 				// loop para receber mensagens do cliente
 				while (true) {
 					String entrada = in.readLine();
+					// o cliente encerrou a conexo sem enviar 'desconectar'
+					if (entrada == null) {
+						break;
+					}
 					// responde a entrada do cliente
 					if (entrada.equalsIgnoreCase("listar tudo")) {
 						out.println(List(0));
@@ -178,6 +234,23 @@ public class ServidorSangue {
 						out.println(List(2));
 					} else if (entrada.equalsIgnoreCase("listar compatibilidade")) {
 						out.println(List(3));
+					} else if (entrada.equalsIgnoreCase("listar rede")) {
+						try {
+							out.println(federacao.listarRede(nomeLocal, readStock()));
+						} catch (Exception e) {
+							out.println(erro401);
+						}
+					} else if (entrada.equalsIgnoreCase("estoque bruto")) {
+						try {
+							float[] estoque = readStock();
+							String linha = "" + estoque[0];
+							for (int i = 1; i < estoque.length; i++) {
+								linha += ";" + estoque[i];
+							}
+							out.println(linha + "\n");
+						} catch (Exception e) {
+							out.println(erro401);
+						}
 					} else if (entrada.equalsIgnoreCase("desconectar")) {
 						break;
 					} else if (entrada.equalsIgnoreCase("comandos")) {
@@ -187,9 +260,10 @@ public class ServidorSangue {
 						String[] comando = entrada.split(" ");
 						// s  vlido se tiver 3 palavras no comando
 						if (comando.length == 3) {
-							// checa se a primeira palavra  adicionar ou
-							// remover
-							if (comando[0].equalsIgnoreCase("adicionar") || comando[0].equalsIgnoreCase("remover")) {
+							// checa se a primeira palavra  adicionar, remover
+							// ou buscar
+							if (comando[0].equalsIgnoreCase("adicionar") || comando[0].equalsIgnoreCase("remover")
+									|| comando[0].equalsIgnoreCase("buscar")) {
 								// checa se a segunda palavra contm vrgula no
 								// final
 								if (comando[1].substring(comando[1].length() - 1).equals(",")) {
@@ -199,7 +273,14 @@ public class ServidorSangue {
 										try {
 											// recebe o valor
 											float valor = Float.valueOf(comando[2]);
-											if (valor > 0) {
+											if (valor > 0 && comando[0].equalsIgnoreCase("buscar")) {
+												try {
+													out.println(federacao.buscar(nomeLocal, readStock(),
+															validTypes.indexOf(tipoSangue), tipoSangue, valor));
+												} catch (Exception e) {
+													out.println(erro401);
+												}
+											} else if (valor > 0) {
 												int operacao = 0;
 												// determina a operao
 												if (comando[0].equalsIgnoreCase("remover")) {
@@ -439,6 +520,23 @@ public class ServidorSangue {
 		return data;
 	}
 
+	/**
+	 * L o estoque desta unidade do banco de dados
+	 * 
+	 * @return litros de cada tipo sanguneo, na ordem O+, O-, A+, A-, B+, B-,
+	 *         AB+, AB-
+	 * @throws IOException
+	 */
+	private static float[] readStock() throws IOException {
+		File databaseFile = new File(path + databaseName);
+		ArrayList<String> linhas = (ArrayList<String>) Files.readAllLines(databaseFile.toPath());
+		float[] estoque = new float[validTypes.size()];
+		for (int i = 0; i < estoque.length; i++) {
+			estoque[i] = Float.valueOf(linhas.get(i));
+		}
+		return estoque;
+	}
+
 	/**
 	 * Author: Madson
 	 * 